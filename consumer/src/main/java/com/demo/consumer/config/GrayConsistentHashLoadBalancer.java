@@ -0,0 +1,106 @@
+package com.demo.consumer.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.NoopServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 灰度一致性哈希负载均衡器
+ * 在GrayServiceInstanceListSupplier过滤后的实例上，按请求中的亲和key做一致性哈希，
+ * 使同一用户在同一灰度版本内稳定落到同一实例；请求不带亲和key时退化为轮询
+ *
+ * @author demo
+ */
+@Slf4j
+public class GrayConsistentHashLoadBalancer implements ReactorServiceInstanceLoadBalancer {
+
+    private static final String GRAY_VERSION_KEY = "gray-version";
+
+    private final ObjectProvider<ServiceInstanceListSupplier> supplierProvider;
+    private final String serviceId;
+    private final String hashHeader;
+    private final int virtualNodes;
+    private final AtomicInteger position = new AtomicInteger();
+    private final Map<String, ConsistentHashRing> rings = new ConcurrentHashMap<>();
+
+    public GrayConsistentHashLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> supplierProvider,
+                                          String serviceId, String hashHeader, int virtualNodes) {
+        this.supplierProvider = supplierProvider;
+        this.serviceId = serviceId;
+        this.hashHeader = hashHeader;
+        this.virtualNodes = virtualNodes;
+    }
+
+    @Override
+    public Mono<Response<ServiceInstance>> choose(Request request) {
+        ServiceInstanceListSupplier supplier = supplierProvider.getIfAvailable(NoopServiceInstanceListSupplier::new);
+        String hashKey = resolveHashKey(request);
+        return supplier.get(request).next().map(instances -> getInstanceResponse(instances, hashKey));
+    }
+
+    private Response<ServiceInstance> getInstanceResponse(List<ServiceInstance> instances, String hashKey) {
+        if (instances.isEmpty()) {
+            log.warn("没有可用的服务实例: {}", serviceId);
+            return new EmptyResponse();
+        }
+
+        if (hashKey == null) {
+            return new DefaultResponse(roundRobin(instances));
+        }
+
+        Map<String, ServiceInstance> instanceById = new HashMap<>(instances.size() * 2);
+        for (ServiceInstance instance : instances) {
+            instanceById.put(instanceKey(instance), instance);
+        }
+
+        // 每个灰度版本一个哈希环，实例集合变化时增量调整
+        String grayVersion = instances.get(0).getMetadata().getOrDefault(GRAY_VERSION_KEY, GrayContext.getNormalVersion());
+        ConsistentHashRing ring = rings.computeIfAbsent(grayVersion, version -> new ConsistentHashRing(virtualNodes));
+        ServiceInstance instance = instanceById.get(ring.syncAndGet(instanceById.keySet(), hashKey));
+        log.debug("一致性哈希选择实例: 服务={}, 灰度版本={}, key={}, 实例={}",
+            serviceId, grayVersion, hashKey, instance != null ? instanceKey(instance) : null);
+        return new DefaultResponse(instance != null ? instance : roundRobin(instances));
+    }
+
+    private ServiceInstance roundRobin(List<ServiceInstance> instances) {
+        int index = (position.incrementAndGet() & Integer.MAX_VALUE) % instances.size();
+        return instances.get(index);
+    }
+
+    /**
+     * 从负载均衡请求上下文中读取亲和key
+     */
+    private String resolveHashKey(Request request) {
+        if (hashHeader == null || hashHeader.isEmpty() || request == null) {
+            return null;
+        }
+        Object context = request.getContext();
+        if (context instanceof RequestDataContext) {
+            RequestDataContext dataContext = (RequestDataContext) context;
+            if (dataContext.getClientRequest() != null && dataContext.getClientRequest().getHeaders() != null) {
+                String value = dataContext.getClientRequest().getHeaders().getFirst(hashHeader);
+                return value == null || value.isEmpty() ? null : value;
+            }
+        }
+        return null;
+    }
+
+    private static String instanceKey(ServiceInstance instance) {
+        return instance.getHost() + ":" + instance.getPort();
+    }
+}
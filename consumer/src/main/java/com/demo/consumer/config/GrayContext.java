@@ -2,24 +2,45 @@ package com.demo.consumer.config;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
 /**
  * 灰度上下文管理器
  * 使用ThreadLocal管理当前请求的灰度信息
+ * 灰度版本在设置时统一规范化并驻留，出站调用（Feign、RocketMQ）都从这里读取，不再各自解析和传参
  * 
  * @author demo
  */
 @Slf4j
 public class GrayContext {
 
+    /**
+     * 灰度标识请求头
+     */
+    public static final String GRAY_HEADER = "gray";
+
     private static final String NORMAL_VERSION = "normal";
     private static final ThreadLocal<String> GRAY_VERSION_HOLDER = new ThreadLocal<>();
 
+    /**
+     * 灰度版本驻留池，相同版本复用同一个字符串实例
+     * 版本数量有限，超过上限后不再驻留，防止异常请求头撑大内存
+     */
+    private static final int MAX_POOLED_VERSIONS = 256;
+    private static final ConcurrentMap<String, String> VERSION_POOL = new ConcurrentHashMap<>();
+
+    static {
+        VERSION_POOL.put(NORMAL_VERSION, NORMAL_VERSION);
+    }
+
     /**
      * 设置当前请求的灰度版本
      */
     public static void setGrayVersion(String grayVersion) {
         if (grayVersion != null && !grayVersion.trim().isEmpty()) {
-            GRAY_VERSION_HOLDER.set(grayVersion.trim());
+            GRAY_VERSION_HOLDER.set(intern(grayVersion.trim()));
             log.debug("设置灰度版本: {}", grayVersion);
         } else {
             GRAY_VERSION_HOLDER.set(NORMAL_VERSION);
@@ -35,6 +56,25 @@ public class GrayContext {
         return grayVersion != null ? grayVersion : NORMAL_VERSION;
     }
 
+    /**
+     * 获取出站请求需要携带的灰度请求头值，normal版本返回null
+     * 版本已驻留，normal判断只需比较引用
+     */
+    public static String getGrayHeaderValue() {
+        String grayVersion = GRAY_VERSION_HOLDER.get();
+        return grayVersion == null || grayVersion == NORMAL_VERSION ? null : grayVersion;
+    }
+
+    /**
+     * 将灰度请求头写入出站请求，所有HTTP客户端统一通过该方法传递灰度标识
+     */
+    public static void propagate(BiConsumer<String, String> headerWriter) {
+        String headerValue = getGrayHeaderValue();
+        if (headerValue != null) {
+            headerWriter.accept(GRAY_HEADER, headerValue);
+        }
+    }
+
     /**
      * 清除当前请求的灰度版本
      */
@@ -47,8 +87,7 @@ public class GrayContext {
      * 判断是否为灰度请求
      */
     public static boolean isGrayRequest() {
-        String grayVersion = getGrayVersion();
-        return !NORMAL_VERSION.equals(grayVersion);
+        return getGrayHeaderValue() != null;
     }
 
     /**
@@ -57,4 +96,16 @@ public class GrayContext {
     public static String getNormalVersion() {
         return NORMAL_VERSION;
     }
+
+    private static String intern(String grayVersion) {
+        String pooled = VERSION_POOL.get(grayVersion);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (VERSION_POOL.size() >= MAX_POOLED_VERSIONS) {
+            return grayVersion;
+        }
+        pooled = VERSION_POOL.putIfAbsent(grayVersion, grayVersion);
+        return pooled != null ? pooled : grayVersion;
+    }
 }
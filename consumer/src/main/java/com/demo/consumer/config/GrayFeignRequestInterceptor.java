@@ -3,7 +3,11 @@ package com.demo.consumer.config;
 import feign.RequestInterceptor;
 import feign.RequestTemplate;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
 /**
  * 灰度Feign请求拦截器
@@ -16,16 +20,30 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class GrayFeignRequestInterceptor implements RequestInterceptor {
 
-    private static final String GRAY_HEADER = "gray";
+    @Value("${gray.affinity.hash-header:}")
+    private String hashHeader;
 
     @Override
     public void apply(RequestTemplate template) {
-        // 从灰度上下文获取灰度版本并传递
-        String grayVersion = GrayContext.getGrayVersion();
-        
-        if (grayVersion != null && !GrayContext.getNormalVersion().equals(grayVersion)) {
-            template.header(GRAY_HEADER, grayVersion);
-            log.debug("Feign请求添加灰度标识: {}", grayVersion);
+        // 灰度标识只由拦截器从灰度上下文写入，先清除已有值避免重复或冲突
+        template.removeHeader(GrayContext.GRAY_HEADER);
+        GrayContext.propagate(template::header);
+
+        // 透传亲和请求头，供一致性哈希负载均衡选择实例
+        propagateAffinityHeader(template);
+    }
+
+    private void propagateAffinityHeader(RequestTemplate template) {
+        if (hashHeader == null || hashHeader.isEmpty() || template.headers().containsKey(hashHeader)) {
+            return;
+        }
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes) {
+            String value = ((ServletRequestAttributes) attributes).getRequest().getHeader(hashHeader);
+            if (value != null && !value.isEmpty()) {
+                template.header(hashHeader, value);
+                log.debug("Feign请求透传亲和标识: {}={}", hashHeader, value);
+            }
         }
     }
 }
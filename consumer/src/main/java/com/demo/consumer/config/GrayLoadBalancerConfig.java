@@ -1,11 +1,17 @@
 package com.demo.consumer.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClient;
+import org.springframework.cloud.loadbalancer.core.ReactorLoadBalancer;
 import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 
 /**
  * 灰度负载均衡配置
@@ -24,18 +30,45 @@ public class GrayLoadBalancerConfig {
      */
     @Bean
     public ServiceInstanceListSupplier serviceInstanceListSupplier(
-            ConfigurableApplicationContext context) {
+            ConfigurableApplicationContext context,
+            MeterRegistry meterRegistry,
+            @Value("${spring.cloud.nacos.discovery.metadata.zone:}") String localZone,
+            @Value("${gray.zone.min-local-instances:1}") int minLocalInstances,
+            @Value("${gray.discovery.cache.refresh-after-ms:5000}") long refreshAfterMs,
+            @Value("${gray.discovery.cache.expire-after-ms:60000}") long expireAfterMs,
+            @Value("${gray.discovery.cache.load-timeout-ms:2000}") long loadTimeoutMs) {
         
         log.info("创建灰度ServiceInstanceListSupplier");
         
         // 构建默认的ServiceInstanceListSupplier链
-        // 使用withBlockingDiscoveryClient()而不是withDiscoveryClient()来避免ReactiveDiscoveryClient依赖
-        ServiceInstanceListSupplier baseSupplier = ServiceInstanceListSupplier.builder()
-                .withBlockingDiscoveryClient()
-                .withCaching()
+        // 使用ReactiveDiscoveryClient非阻塞获取实例，外层用提前刷新的本地缓存替代withCaching()
+        ServiceInstanceListSupplier discoverySupplier = ServiceInstanceListSupplier.builder()
+                .withDiscoveryClient()
                 .build(context);
+        ServiceInstanceListSupplier baseSupplier = new RefreshAheadServiceInstanceListSupplier(
+                discoverySupplier, refreshAfterMs, expireAfterMs, loadTimeoutMs);
         
-        // 使用灰度过滤器包装
-        return new GrayServiceInstanceListSupplier(baseSupplier);
+        // 使用灰度过滤器包装，版本匹配后再按zone优先选择
+        ZoneAffinityFilter zoneAffinityFilter = new ZoneAffinityFilter(localZone, minLocalInstances, meterRegistry);
+        return new GrayServiceInstanceListSupplier(baseSupplier, zoneAffinityFilter);
+    }
+
+    /**
+     * 灰度一致性哈希负载均衡器
+     * 按亲和请求头在同一灰度版本内选择固定实例，替代默认轮询
+     */
+    @Bean
+    public ReactorLoadBalancer<ServiceInstance> reactorServiceInstanceLoadBalancer(
+            Environment environment,
+            LoadBalancerClientFactory loadBalancerClientFactory,
+            @Value("${gray.affinity.hash-header:}") String hashHeader,
+            @Value("${gray.affinity.virtual-nodes:160}") int virtualNodes) {
+
+        String serviceId = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME, "provider");
+        log.info("创建灰度一致性哈希负载均衡器: 服务={}, 亲和请求头={}, 虚拟节点数={}", serviceId, hashHeader, virtualNodes);
+
+        return new GrayConsistentHashLoadBalancer(
+                loadBalancerClientFactory.getLazyProvider(serviceId, ServiceInstanceListSupplier.class),
+                serviceId, hashHeader, virtualNodes);
     }
 }
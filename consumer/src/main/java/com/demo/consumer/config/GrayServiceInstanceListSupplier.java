@@ -20,9 +20,11 @@ public class GrayServiceInstanceListSupplier implements ServiceInstanceListSuppl
 
     private static final String GRAY_VERSION_KEY = "gray-version";
     private final ServiceInstanceListSupplier delegate;
+    private final ZoneAffinityFilter zoneAffinityFilter;
 
-    public GrayServiceInstanceListSupplier(ServiceInstanceListSupplier delegate) {
+    public GrayServiceInstanceListSupplier(ServiceInstanceListSupplier delegate, ZoneAffinityFilter zoneAffinityFilter) {
         this.delegate = delegate;
+        this.zoneAffinityFilter = zoneAffinityFilter;
     }
 
     @Override
@@ -32,20 +34,22 @@ public class GrayServiceInstanceListSupplier implements ServiceInstanceListSuppl
 
     @Override
     public Flux<List<ServiceInstance>> get() {
-        return delegate.get().map(this::filterByGrayVersion);
+        // 在订阅线程上读取灰度上下文，实例列表可能在其他线程上发出
+        return Flux.defer(() -> {
+            String grayVersion = GrayContext.getGrayVersion();
+            return delegate.get().map(instances -> filterByGrayVersion(instances, grayVersion));
+        });
     }
 
     /**
      * 根据灰度版本过滤服务实例
      */
-    private List<ServiceInstance> filterByGrayVersion(List<ServiceInstance> instances) {
+    private List<ServiceInstance> filterByGrayVersion(List<ServiceInstance> instances, String grayVersion) {
         if (instances.isEmpty()) {
             log.warn("没有可用的服务实例: {}", getServiceId());
             return instances;
         }
 
-        // 从灰度上下文获取灰度版本
-        String grayVersion = GrayContext.getGrayVersion();
         log.debug("ServiceInstanceListSupplier过滤服务实例，服务: {}, 灰度版本: {}", getServiceId(), grayVersion);
 
         // 根据灰度版本过滤实例
@@ -62,6 +66,9 @@ public class GrayServiceInstanceListSupplier implements ServiceInstanceListSuppl
             }
         }
 
+        // 在版本过滤结果上叠加同区优先
+        filteredInstances = zoneAffinityFilter.filter(getServiceId(), filteredInstances);
+
         log.info("ServiceInstanceListSupplier过滤结果: 服务={}, 灰度版本={}, 可用实例数={}", 
             getServiceId(), grayVersion, filteredInstances.size());
         
@@ -0,0 +1,138 @@
+package com.demo.consumer.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.DelegatingServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 提前刷新的服务实例缓存
+ * 缓存超过refresh-after后在后台刷新并继续返回旧值，超过expire-after后才等待加载；
+ * 加载失败或超时时返回旧值并重置缓存时间，注册中心持续缓慢时也只在后台刷新，不会表现为调用延迟；
+ * 已有实例时注册中心返回空列表也按加载失败处理，空结果持续超过expire-after才接受
+ *
+ * @author demo
+ */
+@Slf4j
+public class RefreshAheadServiceInstanceListSupplier extends DelegatingServiceInstanceListSupplier {
+
+    private final long refreshAfterMs;
+    private final long expireAfterMs;
+    private final Duration loadTimeout;
+
+    private final AtomicReference<CacheEntry> entry = new AtomicReference<>();
+    private final AtomicReference<Mono<List<ServiceInstance>>> loading = new AtomicReference<>();
+
+    public RefreshAheadServiceInstanceListSupplier(ServiceInstanceListSupplier delegate,
+                                                   long refreshAfterMs, long expireAfterMs, long loadTimeoutMs) {
+        super(delegate);
+        this.refreshAfterMs = refreshAfterMs;
+        this.expireAfterMs = expireAfterMs;
+        this.loadTimeout = Duration.ofMillis(loadTimeoutMs);
+    }
+
+    @Override
+    public Flux<List<ServiceInstance>> get() {
+        return Mono.defer(this::getInstances).flux();
+    }
+
+    private Mono<List<ServiceInstance>> getInstances() {
+        CacheEntry cached = entry.get();
+        if (cached == null) {
+            return load().onErrorResume(e -> {
+                log.warn("加载服务实例失败且无缓存: {}, error={}", getServiceId(), e.getMessage());
+                return Mono.just(Collections.emptyList());
+            });
+        }
+
+        long age = System.currentTimeMillis() - cached.loadedAt;
+        if (age < expireAfterMs) {
+            if (age >= refreshAfterMs) {
+                // 提前刷新，本次直接返回缓存
+                load().subscribe(instances -> { }, e ->
+                    log.warn("后台刷新服务实例失败，继续使用缓存: {}, error={}", getServiceId(), e.getMessage()));
+            }
+            return Mono.just(cached.instances);
+        }
+
+        return load().onErrorResume(e -> {
+            log.warn("加载服务实例失败，使用过期缓存: {}, age={}ms, error={}", getServiceId(), age, e.getMessage());
+            return Mono.just(cached.instances);
+        });
+    }
+
+    /**
+     * 加载实例列表，并发请求共享同一次加载
+     */
+    private Mono<List<ServiceInstance>> load() {
+        Mono<List<ServiceInstance>> current = loading.get();
+        if (current != null) {
+            return current;
+        }
+        Mono<List<ServiceInstance>> created = getDelegate().get()
+            .next()
+            .timeout(loadTimeout)
+            .defaultIfEmpty(Collections.emptyList())
+            .map(this::store)
+            .onErrorResume(this::keepStale)
+            .doFinally(signal -> loading.set(null))
+            .cache();
+        return loading.compareAndSet(null, created) ? created : load();
+    }
+
+    /**
+     * 保存加载结果，返回本次实际使用的实例列表
+     */
+    private List<ServiceInstance> store(List<ServiceInstance> instances) {
+        CacheEntry previous = entry.get();
+        long now = System.currentTimeMillis();
+        if (instances.isEmpty() && previous != null && !previous.instances.isEmpty()) {
+            long emptySince = previous.emptySince > 0 ? previous.emptySince : now;
+            if (now - emptySince < expireAfterMs) {
+                log.warn("注册中心返回空实例列表，继续使用缓存: {}, 已持续{}ms", getServiceId(), now - emptySince);
+                entry.set(new CacheEntry(previous.instances, emptySince));
+                return previous.instances;
+            }
+            log.warn("注册中心持续返回空实例列表超过{}ms，清空缓存: {}", expireAfterMs, getServiceId());
+        }
+        List<ServiceInstance> loaded = Collections.unmodifiableList(instances);
+        entry.set(new CacheEntry(loaded, 0));
+        return loaded;
+    }
+
+    /**
+     * 加载失败时沿用缓存并重置缓存时间，后续请求直接返回缓存并在后台重试；没有缓存时继续抛出异常
+     */
+    private Mono<List<ServiceInstance>> keepStale(Throwable e) {
+        CacheEntry previous = entry.get();
+        if (previous == null) {
+            return Mono.error(e);
+        }
+        log.warn("加载服务实例失败，继续使用缓存: {}, error={}", getServiceId(), e.getMessage());
+        entry.set(new CacheEntry(previous.instances, previous.emptySince));
+        return Mono.just(previous.instances);
+    }
+
+    private static class CacheEntry {
+
+        private final List<ServiceInstance> instances;
+        private final long loadedAt = System.currentTimeMillis();
+
+        /**
+         * 连续返回空列表的起始时间，0表示最近一次加载不为空
+         */
+        private final long emptySince;
+
+        CacheEntry(List<ServiceInstance> instances, long emptySince) {
+            this.instances = instances;
+            this.emptySince = emptySince;
+        }
+    }
+}
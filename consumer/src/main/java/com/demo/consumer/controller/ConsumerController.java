@@ -1,17 +1,29 @@
 package com.demo.consumer.controller;
 
+import com.alibaba.fastjson.JSON;
 import com.demo.consumer.config.GrayContext;
 import com.demo.consumer.service.ConsumerService;
+import feign.Response;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Consumer 控制器
@@ -51,7 +63,7 @@ public class ConsumerController {
             result.put("timestamp", System.currentTimeMillis());
             
             // 调用Provider服务
-            Map<String, Object> providerResult = consumerService.callProvider(gray);
+            Map<String, Object> providerResult = consumerService.callProvider();
             result.put("providerData", providerResult);
             
             return result;
@@ -61,6 +73,96 @@ public class ConsumerController {
         }
     }
 
+    /**
+     * 流式测试接口
+     * 先输出Consumer元信息行，再把Provider的NDJSON响应按块透传，不在内存中缓冲完整结果
+     * 异步请求超时、出错或结束时都会关闭Provider响应，避免连接泄漏
+     */
+    @GetMapping(value = "/test/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> testStream(@RequestHeader(value = "gray", required = false) String gray,
+                                                            HttpServletRequest request) {
+        Response providerResponse;
+        try {
+            // 设置灰度上下文，实例选择在当前线程内完成
+            GrayContext.setGrayVersion(gray);
+
+            log.info("Consumer接收到流式请求，灰度标识: {}, 当前版本: {}", gray, grayVersion);
+
+            providerResponse = consumerService.callProviderStream();
+        } finally {
+            // 清理灰度上下文
+            GrayContext.clear();
+        }
+
+        WebAsyncUtils.getAsyncManager(request)
+            .registerCallableInterceptor(providerResponse, new ResponseClosingInterceptor(providerResponse));
+
+        Map<String, Object> meta = new HashMap<>();
+        meta.put("service", "consumer");
+        meta.put("version", grayVersion);
+        meta.put("port", port);
+        meta.put("gray", gray);
+        meta.put("timestamp", System.currentTimeMillis());
+
+        StreamingResponseBody body = out -> {
+            try (Response response = providerResponse;
+                 InputStream in = response.body().asInputStream()) {
+                out.write(JSON.toJSONBytes(meta));
+                out.write('\n');
+                out.flush();
+
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    out.flush();
+                }
+            }
+        };
+
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_NDJSON)
+            .body(body);
+    }
+
+    /**
+     * 在异步请求超时、出错和结束时关闭Provider响应，只关闭一次
+     */
+    private static class ResponseClosingInterceptor implements CallableProcessingInterceptor {
+
+        private final Response response;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        ResponseClosingInterceptor(Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public <T> Object handleTimeout(NativeWebRequest request, Callable<T> task) {
+            log.warn("流式请求超时，关闭Provider响应");
+            close();
+            return RESULT_NONE;
+        }
+
+        @Override
+        public <T> Object handleError(NativeWebRequest request, Callable<T> task, Throwable t) {
+            log.warn("流式请求出错，关闭Provider响应: {}", t.getMessage());
+            close();
+            return RESULT_NONE;
+        }
+
+        @Override
+        public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+            close();
+        }
+
+        private void close() {
+            if (closed.compareAndSet(false, true)) {
+                response.close();
+            }
+        }
+    }
+
     /**
      * 发送消息接口 - 调用Provider并发送MQ消息
      */
@@ -81,11 +183,11 @@ public class ConsumerController {
             result.put("timestamp", System.currentTimeMillis());
             
             // 1. 调用Provider的hello接口
-            Map<String, Object> providerResult = consumerService.callProviderHello(gray);
+            Map<String, Object> providerResult = consumerService.callProviderHello();
             result.put("providerResult", providerResult);
             
             // 2. 发送RocketMQ消息
-            consumerService.sendGrayMessage(gray);
+            consumerService.sendGrayMessage();
             result.put("messageStatus", "sent");
             
             return result;
@@ -1,14 +1,16 @@
 package com.demo.consumer.feign;
 
 import com.demo.consumer.config.GrayFeignRequestInterceptor;
+import feign.Response;
 import org.springframework.cloud.openfeign.FeignClient;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestHeader;
 
 import java.util.Map;
 
 /**
  * Provider服务Feign客户端
+ * 灰度标识由GrayFeignRequestInterceptor统一从灰度上下文传递，接口方法不再单独声明
  * 
  * @author demo
  */
@@ -19,11 +21,18 @@ public interface ProviderFeignClient {
      * 获取Provider数据
      */
     @GetMapping("/api/data")
-    Map<String, Object> getData(@RequestHeader(value = "gray", required = false) String gray);
+    Map<String, Object> getData();
+
+    /**
+     * 流式获取Provider数据
+     * 返回原始Response，由调用方直接读取响应流，不经过解码器缓冲
+     */
+    @GetMapping(value = "/api/data/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    Response getDataStream();
 
     /**
      * 调用Provider Hello接口
      */
     @GetMapping("/api/hello")
-    Map<String, Object> hello(@RequestHeader(value = "gray", required = false) String gray);
+    Map<String, Object> hello();
 }
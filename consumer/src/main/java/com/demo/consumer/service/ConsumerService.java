@@ -1,6 +1,8 @@
 package com.demo.consumer.service;
 
+import com.demo.consumer.config.GrayContext;
 import com.demo.consumer.feign.ProviderFeignClient;
+import feign.Response;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.spring.core.RocketMQTemplate;
 import org.springframework.messaging.Message;
@@ -28,23 +30,45 @@ public class ConsumerService {
     /**
      * 调用Provider服务
      */
-    public Map<String, Object> callProvider(String gray) {
+    public Map<String, Object> callProvider() {
         try {
-            log.info("Consumer调用Provider服务，灰度标识: {}", gray);
-            return providerFeignClient.getData(gray);
+            log.info("Consumer调用Provider服务，灰度标识: {}", GrayContext.getGrayVersion());
+            return providerFeignClient.getData();
         } catch (Exception e) {
             log.error("调用Provider服务失败", e);
             throw new RuntimeException("调用Provider服务失败: " + e.getMessage());
         }
     }
 
+    /**
+     * 流式调用Provider服务
+     * 调用方负责读取并关闭返回的Response
+     */
+    public Response callProviderStream() {
+        Response response;
+        try {
+            log.info("Consumer流式调用Provider服务，灰度标识: {}", GrayContext.getGrayVersion());
+            response = providerFeignClient.getDataStream();
+        } catch (Exception e) {
+            log.error("流式调用Provider服务失败", e);
+            throw new RuntimeException("流式调用Provider服务失败: " + e.getMessage());
+        }
+
+        if (response.status() < 200 || response.status() >= 300 || response.body() == null) {
+            response.close();
+            log.error("流式调用Provider服务失败，状态码: {}", response.status());
+            throw new RuntimeException("流式调用Provider服务失败，状态码: " + response.status());
+        }
+        return response;
+    }
+
     /**
      * 调用Provider的hello接口
      */
-    public Map<String, Object> callProviderHello(String gray) {
+    public Map<String, Object> callProviderHello() {
         try {
-            log.info("Consumer调用Provider Hello接口，灰度标识: {}", gray);
-            return providerFeignClient.hello(gray);
+            log.info("Consumer调用Provider Hello接口，灰度标识: {}", GrayContext.getGrayVersion());
+            return providerFeignClient.hello();
         } catch (Exception e) {
             log.error("调用Provider Hello接口失败", e);
             throw new RuntimeException("调用Provider Hello接口失败: " + e.getMessage());
@@ -54,15 +78,16 @@ public class ConsumerService {
     /**
      * 发送灰度消息到RocketMQ
      */
-    public void sendGrayMessage(String gray) {
+    public void sendGrayMessage() {
         try {
             String messageBody = "Hello MQ Gray";
-            String grayTag = gray != null ? gray : "normal";
+            // 灰度版本已在灰度上下文中规范化，normal版本同样需要作为Tag发送
+            String grayTag = GrayContext.getGrayVersion();
             
             // 构建消息，设置灰度标识为用户属性（保留兼容性）
             Message<String> message = MessageBuilder
                 .withPayload(messageBody)
-                .setHeader("gray", grayTag)
+                .setHeader(GrayContext.GRAY_HEADER, grayTag)
                 .build();
             
             // 使用Tag机制发送消息：topic:tag格式
@@ -0,0 +1,74 @@
+package com.demo.gateway.config;
+
+import cn.hutool.core.util.HashUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 一致性哈希环
+ * 每个节点映射为若干虚拟节点，节点集合变化时只增删差异部分，新增一个节点时约1/N的key发生迁移
+ *
+ * @author demo
+ */
+public class ConsistentHashRing {
+
+    private final int virtualNodes;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final Set<String> nodes = new HashSet<>();
+
+    public ConsistentHashRing(int virtualNodes) {
+        this.virtualNodes = Math.max(1, virtualNodes);
+    }
+
+    /**
+     * 增量同步节点集合后选出key对应的节点
+     * 同步与查找在同一把锁内完成，返回的节点一定属于本次传入的节点集合
+     */
+    public synchronized String syncAndGet(Collection<String> currentNodes, String key) {
+        sync(currentNodes);
+        if (ring.isEmpty()) {
+            return null;
+        }
+        // key顺时针方向的第一个节点
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * 增量同步节点集合，只处理新增和下线的节点
+     */
+    private void sync(Collection<String> currentNodes) {
+        if (nodes.size() == currentNodes.size() && nodes.containsAll(currentNodes)) {
+            return;
+        }
+
+        Set<String> target = new HashSet<>(currentNodes);
+        Iterator<String> iterator = nodes.iterator();
+        while (iterator.hasNext()) {
+            String node = iterator.next();
+            if (!target.contains(node)) {
+                for (int i = 0; i < virtualNodes; i++) {
+                    ring.remove(hash(node + "#" + i), node);
+                }
+                iterator.remove();
+            }
+        }
+        for (String node : target) {
+            if (nodes.add(node)) {
+                for (int i = 0; i < virtualNodes; i++) {
+                    ring.put(hash(node + "#" + i), node);
+                }
+            }
+        }
+    }
+
+    private static long hash(String value) {
+        return HashUtil.murmur64(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,145 @@
+package com.demo.gateway.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 网关服务实例本地缓存
+ * 基于ReactiveDiscoveryClient非阻塞加载；缓存超过refresh-after后在后台提前刷新并继续返回旧值，
+ * 超过expire-after后才同步等待加载；加载失败或超时时返回旧值并重置缓存时间，
+ * 注册中心持续缓慢时也只在后台刷新，不会阻塞请求；
+ * 已有实例时注册中心返回空列表也按加载失败处理，空结果持续超过expire-after才接受
+ *
+ * @author demo
+ */
+@Slf4j
+@Component
+public class GrayInstanceCache {
+
+    @Resource
+    private ReactiveDiscoveryClient reactiveDiscoveryClient;
+
+    @Value("${gray.discovery.cache.refresh-after-ms:5000}")
+    private long refreshAfterMs;
+
+    @Value("${gray.discovery.cache.expire-after-ms:60000}")
+    private long expireAfterMs;
+
+    @Value("${gray.discovery.cache.max-services:256}")
+    private int maxServices;
+
+    @Value("${gray.discovery.cache.load-timeout-ms:2000}")
+    private long loadTimeoutMs;
+
+    private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 进行中的加载，同一服务的并发请求共享一次加载
+     */
+    private final Map<String, Mono<List<ServiceInstance>>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * 获取服务实例列表
+     */
+    public Mono<List<ServiceInstance>> getInstances(String serviceId) {
+        CacheEntry entry = entries.get(serviceId);
+        if (entry == null) {
+            return load(serviceId).onErrorResume(e -> {
+                log.warn("加载服务实例失败且无缓存: {}, error={}", serviceId, e.getMessage());
+                return Mono.just(Collections.emptyList());
+            });
+        }
+
+        long age = System.currentTimeMillis() - entry.loadedAt;
+        if (age < expireAfterMs) {
+            if (age >= refreshAfterMs) {
+                // 提前刷新，本次直接返回缓存
+                load(serviceId).subscribe(instances -> { }, e ->
+                    log.warn("后台刷新服务实例失败，继续使用缓存: {}, error={}", serviceId, e.getMessage()));
+            }
+            return Mono.just(entry.instances);
+        }
+
+        return load(serviceId).onErrorResume(e -> {
+            log.warn("加载服务实例失败，使用过期缓存: {}, age={}ms, error={}", serviceId, age, e.getMessage());
+            return Mono.just(entry.instances);
+        });
+    }
+
+    private Mono<List<ServiceInstance>> load(String serviceId) {
+        return loading.computeIfAbsent(serviceId, key -> reactiveDiscoveryClient.getInstances(key)
+            .collectList()
+            .timeout(Duration.ofMillis(loadTimeoutMs))
+            .map(instances -> put(key, instances))
+            .onErrorResume(e -> keepStale(key, e))
+            .doFinally(signal -> loading.remove(key))
+            .cache());
+    }
+
+    /**
+     * 保存加载结果，返回本次实际使用的实例列表
+     */
+    private List<ServiceInstance> put(String serviceId, List<ServiceInstance> instances) {
+        CacheEntry previous = entries.get(serviceId);
+        long now = System.currentTimeMillis();
+        if (instances.isEmpty() && previous != null && !previous.instances.isEmpty()) {
+            long emptySince = previous.emptySince > 0 ? previous.emptySince : now;
+            if (now - emptySince < expireAfterMs) {
+                log.warn("注册中心返回空实例列表，继续使用缓存: {}, 已持续{}ms", serviceId, now - emptySince);
+                entries.put(serviceId, new CacheEntry(previous.instances, emptySince));
+                return previous.instances;
+            }
+            log.warn("注册中心持续返回空实例列表超过{}ms，清空缓存: {}", expireAfterMs, serviceId);
+        }
+
+        if (previous == null && entries.size() >= maxServices) {
+            // 超过容量时淘汰最久未刷新的服务
+            entries.entrySet().stream()
+                .min((a, b) -> Long.compare(a.getValue().loadedAt, b.getValue().loadedAt))
+                .ifPresent(eldest -> entries.remove(eldest.getKey()));
+        }
+        List<ServiceInstance> loaded = Collections.unmodifiableList(instances);
+        entries.put(serviceId, new CacheEntry(loaded, 0));
+        return loaded;
+    }
+
+    /**
+     * 加载失败时沿用缓存并重置缓存时间，后续请求直接返回缓存并在后台重试；没有缓存时继续抛出异常
+     */
+    private Mono<List<ServiceInstance>> keepStale(String serviceId, Throwable e) {
+        CacheEntry previous = entries.get(serviceId);
+        if (previous == null) {
+            return Mono.error(e);
+        }
+        log.warn("加载服务实例失败，继续使用缓存: {}, error={}", serviceId, e.getMessage());
+        entries.put(serviceId, new CacheEntry(previous.instances, previous.emptySince));
+        return Mono.just(previous.instances);
+    }
+
+    private static class CacheEntry {
+
+        private final List<ServiceInstance> instances;
+        private final long loadedAt = System.currentTimeMillis();
+
+        /**
+         * 连续返回空列表的起始时间，0表示最近一次加载不为空
+         */
+        private final long emptySince;
+
+        CacheEntry(List<ServiceInstance> instances, long emptySince) {
+            this.instances = instances;
+            this.emptySince = emptySince;
+        }
+    }
+}
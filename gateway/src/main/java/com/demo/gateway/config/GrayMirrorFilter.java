@@ -0,0 +1,257 @@
+package com.demo.gateway.config;
+
+import cn.hutool.core.util.StrUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 灰度影子流量过滤器
+ * 按配置比例把normal请求异步复制一份发往目标灰度版本，影子响应直接丢弃；
+ * 只复制GET/HEAD且路径在gray.mirror.paths白名单内的只读请求，避免影子请求重复产生写操作或MQ消息；
+ * 在途影子请求数有上限，超出时直接放弃复制，保证不给主链路增加延迟。
+ * 主/影子请求的耗时和状态对比记录为指标
+ *
+ * @author demo
+ */
+@Slf4j
+@Component
+public class GrayMirrorFilter implements GlobalFilter, Ordered {
+
+    private static final String GRAY_HEADER = "gray";
+    private static final String SHADOW_HEADER = "X-Gray-Shadow";
+    private static final String GRAY_VERSION_KEY = "gray-version";
+    private static final String NORMAL_VERSION = "normal";
+
+    /**
+     * 位于RouteToRequestUrlFilter(10000)之后、GrayRoutingFilter(10050)之前，此时地址仍是lb://服务名
+     */
+    private static final int ORDER = 10030;
+
+    @Resource
+    private GrayInstanceCache grayInstanceCache;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${gray.mirror.enabled:false}")
+    private boolean enabled;
+
+    @Value("${gray.mirror.target-version:}")
+    private String targetVersion;
+
+    @Value("${gray.mirror.percentage:0}")
+    private double percentage;
+
+    @Value("${gray.mirror.max-in-flight:64}")
+    private int maxInFlight;
+
+    @Value("${gray.mirror.timeout-ms:3000}")
+    private long timeoutMs;
+
+    /**
+     * 允许复制的路径白名单（Ant风格，形如 /服务名/下游路径），为空时不复制任何请求
+     */
+    @Value("${gray.mirror.paths:}")
+    private String[] paths;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    private Semaphore inFlight;
+
+    private WebClient webClient;
+
+    @PostConstruct
+    public void init() {
+        inFlight = new Semaphore(maxInFlight);
+        webClient = WebClient.builder().build();
+        log.info("影子流量配置: enabled={}, targetVersion={}, percentage={}%, maxInFlight={}, paths={}",
+            enabled, targetVersion, percentage, maxInFlight, String.join(",", paths));
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        if (!enabled || StrUtil.isBlank(targetVersion)) {
+            return chain.filter(exchange);
+        }
+
+        ServerHttpRequest request = exchange.getRequest();
+        String grayVersion = request.getHeaders().getFirst(GRAY_HEADER);
+        if (StrUtil.isNotBlank(grayVersion) && !NORMAL_VERSION.equals(grayVersion)) {
+            return chain.filter(exchange);
+        }
+
+        // 只复制只读方法，GET也可能有副作用，因此还要求路径在白名单内
+        HttpMethod method = request.getMethod();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+            return chain.filter(exchange);
+        }
+
+        URI url = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR);
+        if (url == null || url.getHost() == null || !isMirrorable(url)) {
+            return chain.filter(exchange);
+        }
+
+        if (ThreadLocalRandom.current().nextDouble(100) >= percentage) {
+            return chain.filter(exchange);
+        }
+
+        String serviceName = url.getHost();
+        if (!inFlight.tryAcquire()) {
+            meterRegistry.counter("gray.mirror.requests", "service", serviceName, "result", "dropped").increment();
+            return chain.filter(exchange);
+        }
+
+        MirrorComparison comparison = new MirrorComparison(serviceName);
+        sendShadow(serviceName, method, url, request.getHeaders(), comparison);
+
+        long start = System.nanoTime();
+        return chain.filter(exchange).doFinally(signal -> {
+            Integer status = exchange.getResponse().getRawStatusCode();
+            comparison.primaryDone(status != null ? status : 200, System.nanoTime() - start);
+        });
+    }
+
+    /**
+     * 异步发送影子请求，响应体直接释放
+     */
+    private void sendShadow(String serviceName, HttpMethod method, URI url, HttpHeaders headers, MirrorComparison comparison) {
+        long start = System.nanoTime();
+        grayInstanceCache.getInstances(serviceName)
+            .flatMap(instances -> Mono.justOrEmpty(selectShadowInstance(instances)))
+            .switchIfEmpty(Mono.error(new IllegalStateException("未找到影子版本实例: " + targetVersion)))
+            .flatMap(instance -> webClient.method(method)
+                .uri(buildShadowUri(instance, url))
+                .headers(shadowHeaders -> {
+                    shadowHeaders.addAll(headers);
+                    shadowHeaders.remove(HttpHeaders.HOST);
+                    shadowHeaders.remove(HttpHeaders.CONTENT_LENGTH);
+                    shadowHeaders.set(GRAY_HEADER, targetVersion);
+                    shadowHeaders.set(SHADOW_HEADER, "true");
+                })
+                .exchangeToMono(response -> response.releaseBody().thenReturn(response.rawStatusCode())))
+            .timeout(Duration.ofMillis(timeoutMs))
+            .doFinally(signal -> inFlight.release())
+            .subscribe(
+                status -> comparison.shadowDone(status, System.nanoTime() - start),
+                error -> {
+                    log.debug("影子请求失败: 服务={}, 版本={}, error={}", serviceName, targetVersion, error.getMessage());
+                    comparison.shadowDone(-1, System.nanoTime() - start);
+                });
+        meterRegistry.counter("gray.mirror.requests", "service", serviceName, "result", "sent").increment();
+    }
+
+    /**
+     * 按服务名+下游路径匹配白名单
+     */
+    private boolean isMirrorable(URI url) {
+        String path = "/" + url.getHost() + url.getRawPath();
+        for (String pattern : paths) {
+            if (StrUtil.isNotBlank(pattern) && pathMatcher.match(pattern.trim(), path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在目标灰度版本实例中随机选择一个
+     */
+    private ServiceInstance selectShadowInstance(List<ServiceInstance> instances) {
+        List<ServiceInstance> shadowInstances = instances.stream()
+            .filter(instance -> targetVersion.equals(instance.getMetadata().getOrDefault(GRAY_VERSION_KEY, NORMAL_VERSION)))
+            .collect(Collectors.toList());
+        if (shadowInstances.isEmpty()) {
+            return null;
+        }
+        return shadowInstances.get(ThreadLocalRandom.current().nextInt(shadowInstances.size()));
+    }
+
+    private URI buildShadowUri(ServiceInstance instance, URI url) {
+        return UriComponentsBuilder.fromUri(url)
+            .scheme(instance.isSecure() ? "https" : "http")
+            .host(instance.getHost())
+            .port(instance.getPort())
+            .build(true)
+            .toUri();
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    /**
+     * 主请求与影子请求结果对比，两边都完成后记录指标
+     */
+    private class MirrorComparison {
+
+        private final String serviceName;
+        private int primaryStatus;
+        private long primaryNanos = -1;
+        private int shadowStatus;
+        private long shadowNanos = -1;
+
+        MirrorComparison(String serviceName) {
+            this.serviceName = serviceName;
+        }
+
+        synchronized void primaryDone(int status, long nanos) {
+            primaryStatus = status;
+            primaryNanos = nanos;
+            meterRegistry.timer("gray.mirror.latency", "service", serviceName, "role", "primary", "version", NORMAL_VERSION)
+                .record(nanos, TimeUnit.NANOSECONDS);
+            compareIfDone();
+        }
+
+        synchronized void shadowDone(int status, long nanos) {
+            shadowStatus = status;
+            shadowNanos = nanos;
+            meterRegistry.timer("gray.mirror.latency", "service", serviceName, "role", "shadow", "version", targetVersion)
+                .record(nanos, TimeUnit.NANOSECONDS);
+            compareIfDone();
+        }
+
+        private void compareIfDone() {
+            if (primaryNanos < 0 || shadowNanos < 0) {
+                return;
+            }
+            boolean shadowError = shadowStatus < 0 || shadowStatus >= 500;
+            boolean match = primaryStatus / 100 == shadowStatus / 100;
+            meterRegistry.counter("gray.mirror.comparison", "service", serviceName, "version", targetVersion,
+                "status", match ? "match" : "mismatch", "shadowError", String.valueOf(shadowError)).increment();
+            if (primaryNanos > 0) {
+                meterRegistry.summary("gray.mirror.latency.ratio", "service", serviceName, "version", targetVersion)
+                    .record((double) shadowNanos / primaryNanos);
+            }
+            if (!match) {
+                log.info("影子请求状态不一致: 服务={}, 版本={}, primary={}, shadow={}",
+                    serviceName, targetVersion, primaryStatus, shadowStatus);
+            }
+        }
+    }
+}
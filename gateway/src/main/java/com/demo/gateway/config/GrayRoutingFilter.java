@@ -1,9 +1,10 @@
 package com.demo.gateway.config;
 
 import cn.hutool.core.util.StrUtil;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.ServiceInstance;
-import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
@@ -11,17 +12,22 @@ import org.springframework.core.Ordered;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Mono;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.net.URI;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
  * 灰度路由过滤器
  * 根据请求头中的gray标识，动态路由到对应版本的服务实例
+ * 服务实例来自GrayInstanceCache，全程非阻塞，不在事件循环线程上调用注册中心
+ * 在RouteToRequestUrlFilter之后把lb://服务地址改写为选中实例的http地址，默认负载均衡过滤器随之跳过
  * 
  * @author demo
  */
@@ -30,11 +36,45 @@ import java.util.stream.Collectors;
 public class GrayRoutingFilter implements GlobalFilter, Ordered {
 
     @Resource
-    private DiscoveryClient discoveryClient;
+    private GrayInstanceCache grayInstanceCache;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${spring.cloud.nacos.discovery.metadata.zone:}")
+    private String localZone;
+
+    @Value("${gray.zone.min-local-instances:1}")
+    private int minLocalInstances;
+
+    @Value("${gray.affinity.hash-header:}")
+    private String hashHeader;
+
+    @Value("${gray.affinity.virtual-nodes:160}")
+    private int virtualNodes;
+
+    /**
+     * 服务+灰度版本维度的一致性哈希环
+     */
+    private final Map<String, ConsistentHashRing> hashRings = new ConcurrentHashMap<>();
+
+    private ZoneAffinityFilter zoneAffinityFilter;
 
     private static final String GRAY_HEADER = "gray";
     private static final String GRAY_VERSION_KEY = "gray-version";
     private static final String NORMAL_VERSION = "normal";
+    private static final String LB_SCHEME = "lb";
+
+    /**
+     * 位于RouteToRequestUrlFilter(10000)之后、ReactiveLoadBalancerClientFilter(10150)之前，
+     * 此时GATEWAY_REQUEST_URL_ATTR已是lb://服务名地址
+     */
+    private static final int ORDER = 10050;
+
+    @PostConstruct
+    public void init() {
+        zoneAffinityFilter = new ZoneAffinityFilter(localZone, minLocalInstances, meterRegistry);
+    }
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
@@ -48,46 +88,54 @@ public class GrayRoutingFilter implements GlobalFilter, Ordered {
         
         log.info("请求路径: {}, 灰度版本: {}", request.getPath(), grayVersion);
         
-        // 获取目标服务名
-        URI uri = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR);
-        if (uri != null) {
-            String serviceName = uri.getHost();
-            
-            // 根据灰度版本选择服务实例
-            ServiceInstance targetInstance = selectServiceInstance(serviceName, grayVersion);
-            
-            if (targetInstance != null) {
-                // 构建新的URI
-                URI newUri = URI.create(String.format("%s://%s:%d%s", 
-                    uri.getScheme(), 
-                    targetInstance.getHost(), 
-                    targetInstance.getPort(), 
-                    uri.getPath()));
-                
-                // 更新请求URI
-                exchange.getAttributes().put(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR, newUri);
-                
-                log.info("路由到实例: {}:{}, 版本: {}", 
-                    targetInstance.getHost(), 
-                    targetInstance.getPort(), 
-                    targetInstance.getMetadata().get(GRAY_VERSION_KEY));
-            }
-        }
-        
         // 将灰度标识传递给下游服务
         ServerHttpRequest mutatedRequest = request.mutate()
             .header(GRAY_HEADER, grayVersion)
             .build();
+        ServerWebExchange mutatedExchange = exchange.mutate().request(mutatedRequest).build();
+        
+        // 获取目标服务名
+        URI uri = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR);
+        if (uri == null || uri.getHost() == null || !LB_SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            return chain.filter(mutatedExchange);
+        }
+        
+        String serviceName = uri.getHost();
+        String targetVersion = grayVersion;
+        // 根据灰度版本选择服务实例，带亲和标识时按一致性哈希选择
+        String hashKey = StrUtil.isBlank(hashHeader) ? null : request.getHeaders().getFirst(hashHeader);
         
-        return chain.filter(exchange.mutate().request(mutatedRequest).build());
+        return grayInstanceCache.getInstances(serviceName)
+            .doOnNext(instances -> {
+                ServiceInstance targetInstance = selectServiceInstance(serviceName, targetVersion, hashKey, instances);
+                
+                if (targetInstance != null) {
+                    // 构建新的URI，保留路径和查询参数，scheme改为实例的http/https
+                    URI newUri = UriComponentsBuilder.fromUri(uri)
+                        .scheme(targetInstance.isSecure() ? "https" : "http")
+                        .host(targetInstance.getHost())
+                        .port(targetInstance.getPort())
+                        .build(true)
+                        .toUri();
+                    
+                    // 更新请求URI
+                    exchange.getAttributes().put(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR, newUri);
+                    
+                    log.info("路由到实例: {}:{}, 版本: {}", 
+                        targetInstance.getHost(), 
+                        targetInstance.getPort(), 
+                        targetInstance.getMetadata().get(GRAY_VERSION_KEY));
+                }
+            })
+            .then(Mono.defer(() -> chain.filter(mutatedExchange)));
     }
 
     /**
      * 根据灰度版本选择服务实例
      */
-    private ServiceInstance selectServiceInstance(String serviceName, String grayVersion) {
+    private ServiceInstance selectServiceInstance(String serviceName, String grayVersion, String hashKey,
+                                                  List<ServiceInstance> instances) {
         try {
-            List<ServiceInstance> instances = discoveryClient.getInstances(serviceName);
             if (instances.isEmpty()) {
                 log.warn("未找到服务实例: {}", serviceName);
                 return null;
@@ -103,9 +151,9 @@ public class GrayRoutingFilter implements GlobalFilter, Ordered {
                 .collect(Collectors.toList());
             
             if (!grayInstances.isEmpty()) {
-                // 简单轮询选择实例（实际项目中可以使用更复杂的负载均衡算法）
-                int index = (int) (System.currentTimeMillis() % grayInstances.size());
-                return grayInstances.get(index);
+                // 同区优先，本区不足时跨区
+                grayInstances = zoneAffinityFilter.filter(serviceName, grayInstances);
+                return chooseInstance(serviceName, grayVersion, grayInstances, hashKey);
             } else {
                 // 如果没有匹配的灰度实例，降级到normal版本
                 List<ServiceInstance> normalInstances = instances.stream()
@@ -118,8 +166,8 @@ public class GrayRoutingFilter implements GlobalFilter, Ordered {
                 
                 if (!normalInstances.isEmpty()) {
                     log.warn("未找到灰度版本 {} 的实例，降级到normal版本", grayVersion);
-                    int index = (int) (System.currentTimeMillis() % normalInstances.size());
-                    return normalInstances.get(index);
+                    normalInstances = zoneAffinityFilter.filter(serviceName, normalInstances);
+                    return chooseInstance(serviceName, NORMAL_VERSION, normalInstances, hashKey);
                 }
             }
             
@@ -132,8 +180,37 @@ public class GrayRoutingFilter implements GlobalFilter, Ordered {
         }
     }
 
+    /**
+     * 在同版本实例中选择目标实例
+     * 有亲和key时使用一致性哈希保证同一用户落到同一实例，否则简单轮询
+     */
+    private ServiceInstance chooseInstance(String serviceName, String version,
+                                           List<ServiceInstance> instances, String hashKey) {
+        if (StrUtil.isBlank(hashKey)) {
+            return roundRobin(instances);
+        }
+
+        Map<String, ServiceInstance> instanceById = instances.stream()
+            .collect(Collectors.toMap(this::instanceKey, instance -> instance, (a, b) -> a));
+        ConsistentHashRing ring = hashRings.computeIfAbsent(serviceName + "/" + version,
+            key -> new ConsistentHashRing(virtualNodes));
+        ServiceInstance instance = instanceById.get(ring.syncAndGet(instanceById.keySet(), hashKey));
+        log.debug("一致性哈希选择实例: 服务={}, 版本={}, key={}", serviceName, version, hashKey);
+        return instance != null ? instance : roundRobin(instances);
+    }
+
+    private ServiceInstance roundRobin(List<ServiceInstance> instances) {
+        // 简单轮询选择实例（实际项目中可以使用更复杂的负载均衡算法）
+        int index = (int) (System.currentTimeMillis() % instances.size());
+        return instances.get(index);
+    }
+
+    private String instanceKey(ServiceInstance instance) {
+        return instance.getHost() + ":" + instance.getPort();
+    }
+
     @Override
     public int getOrder() {
-        return -100;
+        return ORDER;
     }
 }
@@ -0,0 +1,97 @@
+package com.demo.gateway.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 同可用区优先过滤器
+ * 在灰度版本过滤之后，优先选择与调用方zone相同的实例，本区容量或健康实例不足时才跨区
+ *
+ * @author demo
+ */
+@Slf4j
+public class ZoneAffinityFilter {
+
+    private static final String ZONE_KEY = "zone";
+    private static final String NACOS_HEALTHY_KEY = "nacos.healthy";
+    private static final String NACOS_WEIGHT_KEY = "nacos.weight";
+    private static final String METRIC_NAME = "gray.zone.selection";
+
+    private final String localZone;
+    private final int minLocalInstances;
+    private final MeterRegistry meterRegistry;
+
+    public ZoneAffinityFilter(String localZone, int minLocalInstances, MeterRegistry meterRegistry) {
+        this.localZone = localZone;
+        this.minLocalInstances = Math.max(1, minLocalInstances);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 按zone过滤已匹配版本的实例列表
+     * 本区可用实例数达到阈值时只返回本区实例，否则返回本区可用实例加其他区实例（跨区溢出），
+     * 本区已下线或权重为0的实例在溢出时同样被排除
+     */
+    public List<ServiceInstance> filter(String serviceId, List<ServiceInstance> instances) {
+        if (localZone == null || localZone.trim().isEmpty() || instances.isEmpty()) {
+            return instances;
+        }
+
+        List<ServiceInstance> localInstances = instances.stream()
+            .filter(instance -> localZone.equals(instance.getMetadata().get(ZONE_KEY)))
+            .filter(this::isAvailable)
+            .collect(Collectors.toList());
+
+        if (localInstances.size() >= minLocalInstances) {
+            record(serviceId, "local");
+            log.debug("同区实例选择: 服务={}, zone={}, 本区实例数={}", serviceId, localZone, localInstances.size());
+            return localInstances;
+        }
+
+        List<ServiceInstance> spillInstances = instances.stream()
+            .filter(instance -> !localZone.equals(instance.getMetadata().get(ZONE_KEY)))
+            .collect(Collectors.toList());
+        spillInstances.addAll(localInstances);
+        if (spillInstances.isEmpty()) {
+            // 没有任何其他可选实例时返回原始列表作为最后的降级
+            record(serviceId, "spill");
+            log.warn("本区无可用实例且没有其他区实例，使用原始列表: 服务={}, zone={}", serviceId, localZone);
+            return instances;
+        }
+
+        record(serviceId, "spill");
+        log.warn("本区可用实例不足，跨区溢出: 服务={}, zone={}, 本区实例数={}, 阈值={}, 溢出后实例数={}",
+            serviceId, localZone, localInstances.size(), minLocalInstances, spillInstances.size());
+        return spillInstances;
+    }
+
+    /**
+     * 判断实例是否健康且可承载流量
+     */
+    private boolean isAvailable(ServiceInstance instance) {
+        Map<String, String> metadata = instance.getMetadata();
+        if ("false".equalsIgnoreCase(metadata.get(NACOS_HEALTHY_KEY))) {
+            return false;
+        }
+        String weight = metadata.get(NACOS_WEIGHT_KEY);
+        if (weight != null) {
+            try {
+                return Double.parseDouble(weight) > 0;
+            } catch (NumberFormatException e) {
+                return true;
+            }
+        }
+        return true;
+    }
+
+    private void record(String serviceId, String result) {
+        if (meterRegistry != null) {
+            meterRegistry.counter(METRIC_NAME, "service", serviceId, "zone", localZone, "result", result).increment();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.demo.provider.consumer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.common.admin.ConsumeStats;
+import org.apache.rocketmq.common.admin.OffsetWrapper;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.tools.admin.DefaultMQAdminExt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 灰度消费组指标
+ * 按消费组（provider-consumer-${gray-version}）定时采样积压、消费TPS和处理耗时，
+ * 并估算消化当前流量所需的实例数，通过Micrometer指标和actuator端点/actuator/grayconsumer导出。
+ * 消费TPS按本实例实际处理的消息数计算，积压和在线实例数通过RocketMQ管理接口按消费组查询。
+ * 注意：Broker只按队列记录位点，Tag过滤模式下各灰度消费组共享gray-topic的队列，
+ * 查询到的积压是队列积压，包含其他Tag的消息，并非本灰度版本自己的积压；
+ * 因此Tag过滤的消费组估算实例数时不计入积压，只按处理速率估算，端点输出中以lagScope标明
+ *
+ * @author demo
+ */
+@Slf4j
+@Component
+@Endpoint(id = "grayconsumer")
+public class GrayConsumerMetrics {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${rocketmq.name-server}")
+    private String nameServer;
+
+    @Value("${gray.mq.metrics.sample-interval-ms:10000}")
+    private long sampleIntervalMs;
+
+    @Value("${gray.mq.metrics.drain-target-seconds:60}")
+    private long drainTargetSeconds;
+
+    private final Map<String, GroupStats> groups = new ConcurrentHashMap<>();
+
+    private DefaultMQAdminExt adminExt;
+
+    private ScheduledExecutorService sampler;
+
+    @PostConstruct
+    public void init() {
+        adminExt = new DefaultMQAdminExt();
+        adminExt.setNamesrvAddr(nameServer);
+        adminExt.setInstanceName("gray-consumer-metrics");
+        try {
+            adminExt.start();
+        } catch (Exception e) {
+            log.warn("RocketMQ管理客户端启动失败，只导出本实例处理指标: {}", e.getMessage());
+            adminExt = null;
+        }
+
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gray-mq-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleWithFixedDelay(this::sampleAll, sampleIntervalMs, sampleIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        sampler.shutdownNow();
+        if (adminExt != null) {
+            adminExt.shutdown();
+        }
+    }
+
+    /**
+     * 注册消费组，在RocketMQPushConsumerLifecycleListener.prepareStart中调用
+     *
+     * @param concurrency 单实例实际处理消息的并发线程数
+     * @param tagFiltered 是否按Tag过滤订阅，是则积压包含其他Tag的消息
+     */
+    public void register(String group, String topic, int concurrency, boolean tagFiltered) {
+        GroupStats stats = new GroupStats(topic, concurrency, tagFiltered,
+            Timer.builder("gray.mq.consumer.latency").tag("group", group).register(meterRegistry));
+        if (groups.putIfAbsent(group, stats) != null) {
+            return;
+        }
+
+        Gauge.builder("gray.mq.consumer.lag", stats, s -> s.groupLag).tag("group", group).register(meterRegistry);
+        Gauge.builder("gray.mq.consumer.consume.tps", stats, s -> s.consumeTps).tag("group", group).register(meterRegistry);
+        Gauge.builder("gray.mq.consumer.needed.instances", stats, s -> s.neededInstances).tag("group", group).register(meterRegistry);
+        log.info("注册灰度消费组指标: group={}, topic={}, concurrency={}, tagFiltered={}",
+            group, topic, concurrency, tagFiltered);
+    }
+
+    /**
+     * 记录一条消息的处理耗时
+     */
+    public void recordProcessing(String group, long elapsedNanos) {
+        GroupStats stats = groups.get(group);
+        if (stats != null) {
+            stats.timer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+            stats.windowCount.increment();
+            stats.windowNanos.add(elapsedNanos);
+        }
+    }
+
+    /**
+     * actuator端点：各消费组的最新采样结果
+     */
+    @ReadOperation
+    public Map<String, Object> groups() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        groups.forEach((group, stats) -> result.put(group, stats.toMap()));
+        return result;
+    }
+
+    private void sampleAll() {
+        groups.forEach((group, stats) -> {
+            try {
+                sample(group, stats);
+            } catch (Exception e) {
+                log.warn("采样消费组指标失败: group={}, error={}", group, e.getMessage());
+            }
+        });
+    }
+
+    private void sample(String group, GroupStats stats) throws Exception {
+        // 本实例在采样窗口内实际处理的消息数和平均耗时
+        long now = System.currentTimeMillis();
+        double seconds = (now - stats.sampledAt) / 1000.0;
+        long windowCount = stats.windowCount.sumThenReset();
+        long windowNanos = stats.windowNanos.sumThenReset();
+        stats.sampledAt = now;
+        if (seconds > 0) {
+            stats.consumeTps = windowCount / seconds;
+        }
+        if (windowCount > 0) {
+            stats.avgLatencyMs = windowNanos / 1_000_000.0 / windowCount;
+        }
+
+        if (adminExt == null) {
+            stats.neededInstances = estimateInstances(stats);
+            return;
+        }
+
+        // 消费组整体积压，只统计订阅的主题，排除重试队列
+        ConsumeStats consumeStats = adminExt.examineConsumeStats(group);
+        long lag = 0;
+        int totalQueues = 0;
+        for (Map.Entry<MessageQueue, OffsetWrapper> entry : consumeStats.getOffsetTable().entrySet()) {
+            if (!stats.topic.equals(entry.getKey().getTopic())) {
+                continue;
+            }
+            OffsetWrapper offset = entry.getValue();
+            lag += Math.max(0, offset.getBrokerOffset() - offset.getConsumerOffset());
+            totalQueues++;
+        }
+        int onlineInstances = adminExt.examineConsumerConnectionInfo(group).getConnectionSet().size();
+
+        stats.groupLag = lag;
+        stats.totalQueues = totalQueues;
+        stats.onlineInstances = Math.max(1, onlineInstances);
+        stats.neededInstances = estimateInstances(stats);
+    }
+
+    /**
+     * 估算所需实例数：(组消费TPS + 积压/目标消化时间) / 单实例处理能力，不超过队列数
+     * 组消费TPS按本实例处理速率乘以在线实例数估算；Tag过滤的消费组积压不代表本版本消息量，不计入
+     */
+    private double estimateInstances(GroupStats stats) {
+        if (stats.avgLatencyMs <= 0) {
+            return 1;
+        }
+        double instanceCapacity = stats.concurrency * 1000.0 / stats.avgLatencyMs;
+        double groupConsumeTps = stats.consumeTps * stats.onlineInstances;
+        double lagDemand = stats.tagFiltered ? 0 : stats.groupLag / Math.max(1, drainTargetSeconds);
+        double demand = groupConsumeTps + lagDemand;
+        double needed = Math.max(1, Math.ceil(demand / instanceCapacity));
+        return stats.totalQueues > 0 ? Math.min(needed, stats.totalQueues) : needed;
+    }
+
+    /**
+     * 单个消费组的采样状态
+     */
+    private static class GroupStats {
+
+        private final String topic;
+        private final int concurrency;
+        private final boolean tagFiltered;
+        private final Timer timer;
+        private final LongAdder windowCount = new LongAdder();
+        private final LongAdder windowNanos = new LongAdder();
+
+        private long sampledAt = System.currentTimeMillis();
+
+        private volatile double groupLag;
+        private volatile double consumeTps;
+        private volatile double avgLatencyMs;
+        private volatile double neededInstances = 1;
+        private volatile int totalQueues;
+        private volatile int onlineInstances = 1;
+
+        GroupStats(String topic, int concurrency, boolean tagFiltered, Timer timer) {
+            this.topic = topic;
+            this.concurrency = Math.max(1, concurrency);
+            this.tagFiltered = tagFiltered;
+            this.timer = timer;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("topic", topic);
+            result.put("concurrency", concurrency);
+            result.put("totalQueues", totalQueues);
+            result.put("onlineInstances", onlineInstances);
+            result.put("groupLag", (long) groupLag);
+            // topic：队列积压，包含其他Tag的消息，不计入实例数估算；group：本消费组积压
+            result.put("lagScope", tagFiltered ? "topic" : "group");
+            result.put("consumeTps", consumeTps);
+            result.put("groupConsumeTps", consumeTps * onlineInstances);
+            result.put("avgLatencyMs", avgLatencyMs);
+            result.put("neededInstances", (long) neededInstances);
+            return result;
+        }
+    }
+}
@@ -1,31 +1,55 @@
 package com.demo.provider.consumer;
 
 import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
 import org.apache.rocketmq.spring.core.RocketMQListener;
+import org.apache.rocketmq.spring.core.RocketMQPushConsumerLifecycleListener;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.Resource;
 
 /**
  * 灰度消息消费者
  * 根据灰度版本严格匹配消费消息
+ * 每个灰度版本使用独立消费组和Tag过滤，为默认模式（gray.mq.dispatch-mode=tag）
  * 
  * @author demo
  */
 @Slf4j
 @Component
+@ConditionalOnProperty(name = "gray.mq.dispatch-mode", havingValue = "tag", matchIfMissing = true)
 @RocketMQMessageListener(
     topic = "gray-topic",
     consumerGroup = "provider-consumer-${spring.cloud.nacos.discovery.metadata.gray-version:normal}",
     selectorExpression = "${spring.cloud.nacos.discovery.metadata.gray-version:normal}"
 )
-public class GrayMessageConsumer implements RocketMQListener<MessageExt> {
+public class GrayMessageConsumer implements RocketMQListener<MessageExt>, RocketMQPushConsumerLifecycleListener {
 
     @Value("${spring.cloud.nacos.discovery.metadata.gray-version:normal}")
     private String currentGrayVersion;
 
+    @Resource
+    private GrayMessageProcessor grayMessageProcessor;
+
+    @Resource
+    private MessageDeduplicator messageDeduplicator;
+
+    @Resource
+    private GrayConsumerMetrics grayConsumerMetrics;
+
+    private String consumerGroup;
+
+    @Override
+    public void prepareStart(DefaultMQPushConsumer consumer) {
+        // 注册消费组积压与处理耗时指标；消费线程池使用无界队列，实际并发为consumeThreadMin
+        consumerGroup = consumer.getConsumerGroup();
+        grayConsumerMetrics.register(consumerGroup, "gray-topic", consumer.getConsumeThreadMin(), true);
+    }
+
     @Override
     public void onMessage(MessageExt message) {
         String messageGray = message.getUserProperty("gray");
@@ -38,49 +62,31 @@ public class GrayMessageConsumer implements RocketMQListener<MessageExt> {
         // 由于使用了Tag机制，RocketMQ已经确保只有匹配的消息才会投递到此消费者
         // 因此不需要再进行应用层的版本匹配检查
         
+        // 幂等校验，重投或重平衡导致的重复消息直接确认
+        String dedupKey = messageDeduplicator.resolveKey(message);
+        if (!messageDeduplicator.tryAcquire(dedupKey)) {
+            log.info("重复消息已处理过，直接确认: version={}, messageId={}, key={}",
+                currentGrayVersion, message.getMsgId(), dedupKey);
+            return;
+        }
+
         // 处理消息
         try {
             log.info("开始处理灰度消息: version={}, tag={}, messageId={}, message={}", 
                 currentGrayVersion, messageTag, message.getMsgId(), messageBody);
             
             // 这里可以添加具体的业务逻辑
-            processGrayMessage(messageBody, currentGrayVersion);
+            long start = System.nanoTime();
+            grayMessageProcessor.process(messageBody, currentGrayVersion);
+            grayConsumerMetrics.recordProcessing(consumerGroup, System.nanoTime() - start);
             
             log.info("灰度消息处理完成: version={}, tag={}, messageId={}", 
                 currentGrayVersion, messageTag, message.getMsgId());
         } catch (Exception e) {
             log.error("处理灰度消息失败: version={}, tag={}, messageId={}, error={}", 
                 currentGrayVersion, messageTag, message.getMsgId(), e.getMessage(), e);
+            messageDeduplicator.release(dedupKey);
             throw e; // 重新抛出异常，触发重试机制
         }
     }
-
-    /**
-     * 处理灰度消息的业务逻辑
-     */
-    private void processGrayMessage(String messageBody, String grayVersion) {
-        // 根据不同的灰度版本执行不同的业务逻辑
-        switch (grayVersion) {
-            case "gray-feat1":
-                log.info("执行gray-feat1版本的消息处理逻辑: {}", messageBody);
-                // 这里可以添加gray-feat1特有的业务逻辑
-                break;
-            case "gray-feat2":
-                log.info("执行gray-feat2版本的消息处理逻辑: {}", messageBody);
-                // 这里可以添加gray-feat2特有的业务逻辑
-                break;
-            case "normal":
-            default:
-                log.info("执行normal版本的消息处理逻辑: {}", messageBody);
-                // 这里可以添加normal版本的业务逻辑
-                break;
-        }
-        
-        // 模拟业务处理时间
-        try {
-            Thread.sleep(100);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-    }
 }
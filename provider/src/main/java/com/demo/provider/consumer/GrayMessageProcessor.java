@@ -0,0 +1,44 @@
+package com.demo.provider.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * 灰度消息业务处理器
+ * 按灰度版本执行对应的消息处理逻辑，供Tag模式和共享消费组模式的消费者共用
+ *
+ * @author demo
+ */
+@Slf4j
+@Component
+public class GrayMessageProcessor {
+
+    /**
+     * 处理灰度消息的业务逻辑
+     */
+    public void process(String messageBody, String grayVersion) {
+        // 根据不同的灰度版本执行不同的业务逻辑
+        switch (grayVersion) {
+            case "gray-feat1":
+                log.info("执行gray-feat1版本的消息处理逻辑: {}", messageBody);
+                // 这里可以添加gray-feat1特有的业务逻辑
+                break;
+            case "gray-feat2":
+                log.info("执行gray-feat2版本的消息处理逻辑: {}", messageBody);
+                // 这里可以添加gray-feat2特有的业务逻辑
+                break;
+            case "normal":
+            default:
+                log.info("执行normal版本的消息处理逻辑: {}", messageBody);
+                // 这里可以添加normal版本的业务逻辑
+                break;
+        }
+        
+        // 模拟业务处理时间
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
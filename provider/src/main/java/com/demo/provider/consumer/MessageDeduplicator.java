@@ -0,0 +1,159 @@
+package com.demo.provider.consumer;
+
+import cn.hutool.core.util.HashUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 消息幂等去重器
+ * 以msgId或业务key的64位murmur哈希为键，保存在定长的long数组开放寻址表中，按时间过期；
+ * 表满时淘汰探测窗口内最早过期的记录，内存占用固定，不随消息量增长
+ *
+ * @author demo
+ */
+@Slf4j
+@Component
+public class MessageDeduplicator {
+
+    private static final int PROBE_WINDOW = 16;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${gray.mq.dedup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${gray.mq.dedup.capacity:65536}")
+    private int capacity;
+
+    @Value("${gray.mq.dedup.ttl-ms:600000}")
+    private long ttlMs;
+
+    @Value("${gray.mq.dedup.key-property:}")
+    private String keyProperty;
+
+    private long[] keys;
+    private long[] expireAt;
+    private int mask;
+
+    private Counter acceptedCounter;
+    private Counter duplicateCounter;
+    private Counter evictedCounter;
+
+    @PostConstruct
+    public void init() {
+        int tableSize = Integer.highestOneBit(Math.max(PROBE_WINDOW, capacity - 1)) << 1;
+        keys = new long[tableSize];
+        expireAt = new long[tableSize];
+        mask = tableSize - 1;
+
+        acceptedCounter = meterRegistry.counter("gray.mq.dedup", "result", "accepted");
+        duplicateCounter = meterRegistry.counter("gray.mq.dedup", "result", "duplicate");
+        evictedCounter = meterRegistry.counter("gray.mq.dedup.evicted");
+
+        log.info("消息去重器初始化: enabled={}, 容量={}, ttl={}ms, keyProperty={}", enabled, tableSize, ttlMs, keyProperty);
+    }
+
+    /**
+     * 解析去重键，优先使用配置的业务key属性，否则使用msgId
+     */
+    public String resolveKey(MessageExt message) {
+        if (keyProperty != null && !keyProperty.isEmpty()) {
+            String businessKey = message.getUserProperty(keyProperty);
+            if (businessKey != null && !businessKey.isEmpty()) {
+                return businessKey;
+            }
+        }
+        return message.getMsgId();
+    }
+
+    /**
+     * 登记消息，首次出现返回true；在有效期内重复出现返回false，调用方直接确认即可
+     */
+    public boolean tryAcquire(String key) {
+        if (!enabled || key == null) {
+            return true;
+        }
+        long hash = hash(key);
+        boolean accepted;
+        boolean evicted = false;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            int start = index(hash);
+            int free = -1;
+            int oldest = -1;
+            long oldestExpireAt = Long.MAX_VALUE;
+            accepted = true;
+            for (int i = 0; i < PROBE_WINDOW; i++) {
+                int slot = (start + i) & mask;
+                if (expireAt[slot] > now) {
+                    if (keys[slot] == hash) {
+                        accepted = false;
+                        break;
+                    }
+                    if (expireAt[slot] < oldestExpireAt) {
+                        oldestExpireAt = expireAt[slot];
+                        oldest = slot;
+                    }
+                } else if (free < 0) {
+                    free = slot;
+                }
+            }
+            if (accepted) {
+                int slot = free;
+                if (slot < 0) {
+                    slot = oldest;
+                    evicted = true;
+                }
+                keys[slot] = hash;
+                expireAt[slot] = now + ttlMs;
+            }
+        }
+
+        if (evicted) {
+            evictedCounter.increment();
+        }
+        if (accepted) {
+            acceptedCounter.increment();
+        } else {
+            duplicateCounter.increment();
+        }
+        return accepted;
+    }
+
+    /**
+     * 处理失败时移除登记，允许Broker重投的消息再次处理
+     */
+    public void release(String key) {
+        if (!enabled || key == null) {
+            return;
+        }
+        long hash = hash(key);
+        synchronized (this) {
+            int start = index(hash);
+            for (int i = 0; i < PROBE_WINDOW; i++) {
+                int slot = (start + i) & mask;
+                if (keys[slot] == hash && expireAt[slot] != 0) {
+                    expireAt[slot] = 0;
+                    return;
+                }
+            }
+        }
+    }
+
+    private int index(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static long hash(String value) {
+        return HashUtil.murmur64(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
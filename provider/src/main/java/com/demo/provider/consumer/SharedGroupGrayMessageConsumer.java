@@ -0,0 +1,299 @@
+package com.demo.provider.consumer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
+import org.apache.rocketmq.spring.core.RocketMQListener;
+import org.apache.rocketmq.spring.core.RocketMQPushConsumerLifecycleListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 共享消费组灰度消息消费者
+ * 所有版本的Provider使用同一个消费组订阅全部Tag，批量拉取后按消息的gray属性分发到进程内对应版本的处理线程池，
+ * 没有存活实例的灰度版本回退到normal处理。开启方式：gray.mq.dispatch-mode=shared
+ *
+ * @author demo
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "gray.mq.dispatch-mode", havingValue = "shared")
+@RocketMQMessageListener(
+    topic = "gray-topic",
+    consumerGroup = "${gray.mq.shared.consumer-group:provider-consumer-shared}",
+    selectorExpression = "*"
+)
+public class SharedGroupGrayMessageConsumer implements RocketMQListener<MessageExt>, RocketMQPushConsumerLifecycleListener {
+
+    private static final String GRAY_PROPERTY = "gray";
+    private static final String GRAY_VERSION_KEY = "gray-version";
+    private static final String NORMAL_VERSION = "normal";
+
+    @Resource
+    private GrayMessageProcessor grayMessageProcessor;
+
+    @Resource
+    private MessageDeduplicator messageDeduplicator;
+
+    @Resource
+    private GrayConsumerMetrics grayConsumerMetrics;
+
+    @Resource
+    private DiscoveryClient discoveryClient;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${spring.application.name}")
+    private String applicationName;
+
+    @Value("${spring.cloud.nacos.discovery.metadata.gray-version:normal}")
+    private String currentGrayVersion;
+
+    @Value("${gray.mq.shared.batch-size:32}")
+    private int batchSize;
+
+    @Value("${gray.mq.shared.handler-threads:4}")
+    private int handlerThreads;
+
+    @Value("${gray.mq.shared.handler-queue-capacity:1024}")
+    private int handlerQueueCapacity;
+
+    @Value("${gray.mq.shared.live-refresh-interval-ms:5000}")
+    private long liveRefreshIntervalMs;
+
+    @Value("${gray.mq.shared.shutdown-timeout-ms:10000}")
+    private long shutdownTimeoutMs;
+
+    /**
+     * 各灰度版本的处理线程池，只为存活版本创建
+     */
+    private final Map<String, ExecutorService> handlerPools = new ConcurrentHashMap<>();
+
+    /**
+     * 当前有存活实例的灰度版本，定时从注册中心刷新，刷新失败时沿用上次结果
+     */
+    private volatile Set<String> liveVersions = Collections.emptySet();
+
+    private ScheduledExecutorService refresher;
+
+    /**
+     * 已停止时不再为新版本创建处理线程池
+     */
+    private volatile boolean stopped;
+
+    private String consumerGroup;
+
+    @PostConstruct
+    public void init() {
+        Set<String> initial = new HashSet<>();
+        initial.add(NORMAL_VERSION);
+        initial.add(currentGrayVersion);
+        liveVersions = Collections.unmodifiableSet(initial);
+
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gray-mq-live-versions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshLiveVersions, 0, liveRefreshIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止接收新任务，并在超时时间内等待已分发的消息处理完
+     */
+    @PreDestroy
+    public void destroy() {
+        stopped = true;
+        refresher.shutdownNow();
+        handlerPools.values().forEach(ExecutorService::shutdown);
+
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMs;
+        try {
+            for (Map.Entry<String, ExecutorService> entry : handlerPools.entrySet()) {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                if (!entry.getValue().awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                    log.warn("灰度版本 {} 处理线程池未在 {}ms 内结束，强制关闭", entry.getKey(), shutdownTimeoutMs);
+                    entry.getValue().shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            handlerPools.values().forEach(ExecutorService::shutdownNow);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void prepareStart(DefaultMQPushConsumer consumer) {
+        // 批量拉取，一批消息在进程内并行分发到各版本线程池
+        consumer.setConsumeMessageBatchMaxSize(batchSize);
+        consumer.registerMessageListener((MessageListenerConcurrently) this::consumeBatch);
+        // 注册消费组积压与处理耗时指标，消息实际在版本处理线程池中执行，处理能力按处理线程数估算
+        consumerGroup = consumer.getConsumerGroup();
+        grayConsumerMetrics.register(consumerGroup, "gray-topic", handlerThreads, false);
+        log.info("共享消费组模式启动: group={}, batchSize={}, handlerThreads={}",
+            consumer.getConsumerGroup(), batchSize, handlerThreads);
+    }
+
+    @Override
+    public void onMessage(MessageExt message) {
+        dispatch(message).join();
+    }
+
+    /**
+     * 批量消费，只有失败位置之后的消息交给Broker重投
+     */
+    private ConsumeConcurrentlyStatus consumeBatch(List<MessageExt> messages, ConsumeConcurrentlyContext context) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(messages.size());
+        for (MessageExt message : messages) {
+            futures.add(dispatch(message));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).join();
+            } catch (Exception e) {
+                log.error("共享消费组消息处理失败: messageId={}, error={}",
+                    messages.get(i).getMsgId(), e.getMessage(), e);
+                // 等待剩余消息处理完再返回，避免与重投的消息并发执行
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).exceptionally(ex -> null).join();
+                if (i == 0) {
+                    return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+                }
+                context.setAckIndex(i - 1);
+                return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+            }
+        }
+        return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+    }
+
+    /**
+     * 按消息灰度属性分发到对应版本的处理线程池
+     */
+    private CompletableFuture<Void> dispatch(MessageExt message) {
+        // 幂等校验，重投或重平衡导致的重复消息直接确认
+        String dedupKey = messageDeduplicator.resolveKey(message);
+        if (!messageDeduplicator.tryAcquire(dedupKey)) {
+            log.info("重复消息已处理过，直接确认: messageId={}, key={}", message.getMsgId(), dedupKey);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        String messageGray = resolveMessageGray(message);
+        String targetVersion = messageGray;
+        if (!liveVersions.contains(messageGray)) {
+            targetVersion = NORMAL_VERSION;
+            // 消息属性来自生产方，不作为指标标签，避免标签基数失控
+            meterRegistry.counter("gray.mq.dispatch.fallback", "to", NORMAL_VERSION).increment();
+            log.warn("灰度版本 {} 没有存活实例，消息回退到normal处理: messageId={}", messageGray, message.getMsgId());
+        }
+
+        String version = targetVersion;
+        Timer timer = meterRegistry.timer("gray.mq.dispatch", "version", version);
+        CompletableFuture<Void> future;
+        try {
+            future = CompletableFuture.runAsync(() -> timer.record(() -> {
+                String messageBody = new String(message.getBody(), StandardCharsets.UTF_8);
+                log.info("共享消费组分发消息: version={}, messageGray={}, messageId={}, message={}",
+                    version, messageGray, message.getMsgId(), messageBody);
+                long start = System.nanoTime();
+                grayMessageProcessor.process(messageBody, version);
+                grayConsumerMetrics.recordProcessing(consumerGroup, System.nanoTime() - start);
+            }), handlerPool(version));
+        } catch (RejectedExecutionException e) {
+            // 线程池已关闭（应用停止或版本下线），消息交给Broker重投
+            log.warn("处理线程池已关闭，消息稍后重投: version={}, messageId={}", version, message.getMsgId());
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        return future.whenComplete((result, e) -> {
+            if (e != null) {
+                messageDeduplicator.release(dedupKey);
+            }
+        });
+    }
+
+    private String resolveMessageGray(MessageExt message) {
+        String messageGray = message.getUserProperty(GRAY_PROPERTY);
+        if (messageGray == null || messageGray.trim().isEmpty()) {
+            messageGray = message.getTags();
+        }
+        return messageGray == null || messageGray.trim().isEmpty() ? NORMAL_VERSION : messageGray.trim();
+    }
+
+    private ExecutorService handlerPool(String version) {
+        if (stopped) {
+            throw new RejectedExecutionException("共享消费组已停止");
+        }
+        return handlerPools.computeIfAbsent(version, key -> {
+            AtomicInteger index = new AtomicInteger();
+            // 有界队列，队列满时由消费线程自己执行，形成背压；线程池关闭后拒绝任务，而不是像CallerRunsPolicy那样静默丢弃
+            return new ThreadPoolExecutor(handlerThreads, handlerThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(handlerQueueCapacity),
+                runnable -> new Thread(runnable, "gray-mq-" + key + "-" + index.incrementAndGet()),
+                (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("灰度版本 " + key + " 处理线程池已关闭");
+                    }
+                    runnable.run();
+                });
+        });
+    }
+
+    /**
+     * 从注册中心刷新存活的灰度版本
+     */
+    private void refreshLiveVersions() {
+        try {
+            Set<String> versions = new HashSet<>();
+            versions.add(NORMAL_VERSION);
+            for (ServiceInstance instance : discoveryClient.getInstances(applicationName)) {
+                versions.add(instance.getMetadata().getOrDefault(GRAY_VERSION_KEY, NORMAL_VERSION));
+            }
+            if (!versions.equals(liveVersions)) {
+                log.info("存活灰度版本变更: {} -> {}", liveVersions, versions);
+            }
+            liveVersions = Collections.unmodifiableSet(versions);
+            // 关闭已下线版本的处理线程池，队列中已分发的消息仍会处理完
+            handlerPools.entrySet().removeIf(entry -> {
+                if (versions.contains(entry.getKey())) {
+                    return false;
+                }
+                log.info("灰度版本 {} 已无存活实例，关闭其处理线程池", entry.getKey());
+                entry.getValue().shutdown();
+                return true;
+            });
+        } catch (Exception e) {
+            log.warn("刷新存活灰度版本失败，沿用上次结果: {}", liveVersions, e);
+        }
+    }
+}
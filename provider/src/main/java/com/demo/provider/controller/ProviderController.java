@@ -1,14 +1,20 @@
 package com.demo.provider.controller;
 
+import com.alibaba.fastjson.JSON;
 import com.demo.provider.service.ProviderService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -52,6 +58,46 @@ public class ProviderController {
         return result;
     }
 
+    /**
+     * 流式获取数据接口
+     * 以NDJSON逐行输出：首行为元信息，随后每行一条业务数据，边生成边写出，不在内存中拼装完整结果
+     */
+    @GetMapping(value = "/data/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getDataStream(@RequestHeader(value = "gray", required = false) String gray) {
+        log.info("Provider接收到流式请求，灰度标识: {}, 当前版本: {}", gray, grayVersion);
+
+        StreamingResponseBody body = out -> {
+            Map<String, Object> meta = new HashMap<>();
+            meta.put("service", "provider");
+            meta.put("version", grayVersion);
+            meta.put("port", port);
+            meta.put("gray", gray);
+            meta.put("timestamp", System.currentTimeMillis());
+            writeLine(out, meta);
+
+            // 根据版本返回不同的业务数据，每产出一条立即写出，不先汇总成完整结果
+            providerService.streamBusinessData(grayVersion, (key, value) -> {
+                Map<String, Object> line = new HashMap<>();
+                line.put("key", key);
+                line.put("value", value);
+                writeLine(out, line);
+            });
+        };
+
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_NDJSON)
+            .body(body);
+    }
+
+    /**
+     * 写出一行NDJSON并立即刷新，保证下游尽早收到首字节
+     */
+    private void writeLine(OutputStream out, Map<String, Object> line) throws IOException {
+        out.write(JSON.toJSONBytes(line));
+        out.write('\n');
+        out.flush();
+    }
+
     /**
      * Hello接口
      */
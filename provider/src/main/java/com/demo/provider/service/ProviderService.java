@@ -3,6 +3,7 @@ package com.demo.provider.service;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -20,32 +21,44 @@ public class ProviderService {
      */
     public Map<String, Object> getBusinessData(String version) {
         Map<String, Object> data = new HashMap<>();
-        
+        try {
+            streamBusinessData(version, data::put);
+        } catch (IOException e) {
+            // 写入Map不会抛出IO异常
+            throw new IllegalStateException(e);
+        }
+        return data;
+    }
+
+    /**
+     * 根据版本逐条产出业务数据，每产出一条立即交给sink，调用方无需等待全部结果
+     */
+    public void streamBusinessData(String version, BusinessDataSink sink) throws IOException {
         switch (version) {
             case "gray-feat1":
                 // 灰度功能1的业务逻辑
-                data.put("feature", "gray-feat1");
-                data.put("description", "灰度功能1：新增用户画像分析");
-                data.put("newFeatures", new String[]{"用户行为分析", "个性化推荐", "智能标签"});
-                data.put("algorithm", "机器学习算法v2.0");
+                sink.accept("feature", "gray-feat1");
+                sink.accept("description", "灰度功能1：新增用户画像分析");
+                sink.accept("newFeatures", new String[]{"用户行为分析", "个性化推荐", "智能标签"});
+                sink.accept("algorithm", "机器学习算法v2.0");
                 log.info("执行灰度功能1业务逻辑");
                 break;
                 
             case "gray-feat2":
                 // 灰度功能2的业务逻辑
-                data.put("feature", "gray-feat2");
-                data.put("description", "灰度功能2：优化搜索算法");
-                data.put("newFeatures", new String[]{"语义搜索", "智能纠错", "搜索建议"});
-                data.put("algorithm", "深度学习搜索引擎v3.0");
+                sink.accept("feature", "gray-feat2");
+                sink.accept("description", "灰度功能2：优化搜索算法");
+                sink.accept("newFeatures", new String[]{"语义搜索", "智能纠错", "搜索建议"});
+                sink.accept("algorithm", "深度学习搜索引擎v3.0");
                 log.info("执行灰度功能2业务逻辑");
                 break;
                 
             default:
                 // 正常版本的业务逻辑
-                data.put("feature", "normal");
-                data.put("description", "正常版本：基础功能");
-                data.put("features", new String[]{"基础查询", "数据展示", "简单统计"});
-                data.put("algorithm", "传统算法v1.0");
+                sink.accept("feature", "normal");
+                sink.accept("description", "正常版本：基础功能");
+                sink.accept("features", new String[]{"基础查询", "数据展示", "简单统计"});
+                sink.accept("algorithm", "传统算法v1.0");
                 log.info("执行正常版本业务逻辑");
                 break;
         }
@@ -56,7 +69,14 @@ public class ProviderService {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
-        
-        return data;
+    }
+
+    /**
+     * 业务数据接收方
+     */
+    @FunctionalInterface
+    public interface BusinessDataSink {
+
+        void accept(String key, Object value) throws IOException;
     }
 }